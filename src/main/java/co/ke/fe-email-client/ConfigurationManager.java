@@ -9,7 +9,10 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -148,6 +151,52 @@ public class ConfigurationManager {
         return new SmtpConfig(host, port, username, password, useSSL, useTLS);
     }
     
+    /**
+     * Gets delivery concurrency settings, falling back to defaults when the section is absent
+     */
+    public DeliveryConfig getDeliveryConfig() {
+        NodeList deliveryNodes = configDocument.getElementsByTagName("delivery");
+        if (deliveryNodes.getLength() == 0) {
+            return DeliveryConfig.defaults();
+        }
+        
+        Element deliveryElement = (Element) deliveryNodes.item(0);
+        int workerThreads = parsePositiveInt(getElementText(deliveryElement, "workerThreads"), 
+                DeliveryConfig.DEFAULT_WORKER_THREADS);
+        int maxConnectionsPerDomain = parsePositiveInt(getElementText(deliveryElement, "maxConnectionsPerDomain"), 
+                DeliveryConfig.DEFAULT_MAX_CONNECTIONS_PER_DOMAIN);
+        
+        Map<String, Integer> domainLimits = new HashMap<>();
+        NodeList limitNodes = deliveryElement.getElementsByTagName("domainLimit");
+        for (int i = 0; i < limitNodes.getLength(); i++) {
+            Element limitElement = (Element) limitNodes.item(i);
+            String domain = limitElement.getAttribute("domain").trim().toLowerCase(Locale.ROOT);
+            if (!domain.isEmpty()) {
+                domainLimits.put(domain, parsePositiveInt(limitElement.getTextContent(), maxConnectionsPerDomain));
+            }
+        }
+        
+        return new DeliveryConfig(workerThreads, maxConnectionsPerDomain, domainLimits);
+    }
+    
+    /**
+     * Gets DKIM signing configuration, disabled when the section is absent
+     */
+    public DkimConfig getDkimConfig() {
+        NodeList dkimNodes = configDocument.getElementsByTagName("dkim");
+        if (dkimNodes.getLength() == 0) {
+            return new DkimConfig(false, "", "", "");
+        }
+        
+        Element dkimElement = (Element) dkimNodes.item(0);
+        boolean enabled = Boolean.parseBoolean(getElementText(dkimElement, "enabled"));
+        String domain = getElementText(dkimElement, "domain");
+        String selector = getElementText(dkimElement, "selector");
+        String privateKeyPath = getElementText(dkimElement, "privateKeyPath");
+        
+        return new DkimConfig(enabled, domain, selector, privateKeyPath);
+    }
+    
     /**
      * Gets list of active recipients
      */
@@ -171,6 +220,27 @@ public class ConfigurationManager {
         return recipients;
     }
     
+    /**
+     * Gets active recipients encoded into a compact store shared across templates
+     */
+    public RecipientStore getActiveRecipientStore() {
+        RecipientStore.Builder builder = new RecipientStore.Builder();
+        NodeList recipientNodes = configDocument.getElementsByTagName("recipient");
+        
+        for (int i = 0; i < recipientNodes.getLength(); i++) {
+            Element recipientElement = (Element) recipientNodes.item(i);
+            boolean active = Boolean.parseBoolean(getElementText(recipientElement, "active"));
+            
+            if (active) {
+                builder.add(getElementText(recipientElement, "name"), 
+                        getElementText(recipientElement, "email"), 
+                        getElementText(recipientElement, "type"));
+            }
+        }
+        
+        return builder.build();
+    }
+    
     /**
      * Gets list of active email templates
      */
@@ -204,6 +274,18 @@ public class ConfigurationManager {
         return value;
     }
     
+    /**
+     * Helper method to parse a positive integer setting with a fallback
+     */
+    private int parsePositiveInt(String value, int defaultValue) {
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+    
     /**
      * Helper method to get element text content
      */
@@ -252,6 +334,43 @@ public class ConfigurationManager {
         }
     }
     
+    public static class DeliveryConfig {
+        public static final int DEFAULT_WORKER_THREADS = 8;
+        public static final int DEFAULT_MAX_CONNECTIONS_PER_DOMAIN = 2;
+        
+        public final int workerThreads, maxConnectionsPerDomain;
+        public final Map<String, Integer> domainLimits;
+        
+        public DeliveryConfig(int workerThreads, int maxConnectionsPerDomain, Map<String, Integer> domainLimits) {
+            this.workerThreads = workerThreads;
+            this.maxConnectionsPerDomain = maxConnectionsPerDomain;
+            this.domainLimits = domainLimits;
+        }
+        
+        public static DeliveryConfig defaults() {
+            return new DeliveryConfig(DEFAULT_WORKER_THREADS, DEFAULT_MAX_CONNECTIONS_PER_DOMAIN, new HashMap<>());
+        }
+        
+        /**
+         * Concurrent connection cap for a destination domain
+         */
+        public int limitFor(String domain) {
+            return domainLimits.getOrDefault(domain, maxConnectionsPerDomain);
+        }
+    }
+    
+    public static class DkimConfig {
+        public final boolean enabled;
+        public final String domain, selector, privateKeyPath;
+        
+        public DkimConfig(boolean enabled, String domain, String selector, String privateKeyPath) {
+            this.enabled = enabled;
+            this.domain = domain;
+            this.selector = selector;
+            this.privateKeyPath = privateKeyPath;
+        }
+    }
+    
     public static class Recipient {
         public final String name, email, type;
         
@@ -0,0 +1,230 @@
+package co.ke.fe_email_client;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * DKIM signer (rsa-sha256, relaxed/relaxed) tuned for bulk sending.
+ * The private key is loaded once and Signature instances are pooled per thread.
+ * A body sent to every recipient is hashed once by the caller and passed in, leaving
+ * header signing as the only per-message cryptographic work; personalized bodies
+ * differ per recipient and are hashed with each message.
+ */
+public class DkimSigner {
+
+    private static final String SIGNATURE_HEADER = "DKIM-Signature";
+    private static final String[] SIGNED_HEADERS = {
+        "From", "To", "Subject", "Date", "Message-ID", "MIME-Version", "Content-Type", "Content-Transfer-Encoding"
+    };
+
+    private final String domain;
+    private final String selector;
+    private final PrivateKey privateKey;
+    private final ThreadLocal<Signature> signatures;
+    private final ThreadLocal<MessageDigest> digests;
+
+    public DkimSigner(ConfigurationManager.DkimConfig dkimConfig) throws GeneralSecurityException, IOException {
+        this.domain = dkimConfig.domain;
+        this.selector = dkimConfig.selector;
+        this.privateKey = loadPrivateKey(dkimConfig.privateKeyPath);
+        this.signatures = ThreadLocal.withInitial(this::newSignature);
+        this.digests = ThreadLocal.withInitial(DkimSigner::newDigest);
+    }
+
+    /**
+     * Creates an HTML message that signs itself whenever its headers are updated before sending
+     */
+    public MimeMessage createSignedMessage(Session session, String htmlContent, String transferEncoding) 
+            throws MessagingException {
+        return createSignedMessage(session, htmlContent, transferEncoding, bodyHash(htmlContent, transferEncoding));
+    }
+
+    /**
+     * Creates a signed HTML message using a body hash computed once for a body shared by many messages
+     */
+    public MimeMessage createSignedMessage(Session session, String htmlContent, String transferEncoding, 
+                                           String bodyHash) throws MessagingException {
+        MimeMessage message = new MimeMessage(session) {
+            @Override
+            protected void updateHeaders() throws MessagingException {
+                super.updateHeaders();
+                sign(this, bodyHash);
+            }
+        };
+        message.setContent(htmlContent, "text/html; charset=utf-8");
+        // Pin the transfer encoding so the body on the wire matches the cached hash
+        message.setHeader("Content-Transfer-Encoding", transferEncoding);
+        return message;
+    }
+
+    /**
+     * Returns the base64 hash of the body as it will be encoded and canonicalized on the wire
+     */
+    public String bodyHash(String htmlContent, String transferEncoding) throws MessagingException {
+        byte[] canonicalBody = canonicalizeBody(encodeBody(htmlContent.getBytes(StandardCharsets.UTF_8), transferEncoding));
+        return Base64.getEncoder().encodeToString(digests.get().digest(canonicalBody));
+    }
+
+    /**
+     * Signs the message headers and sets the DKIM-Signature header
+     */
+    private void sign(MimeMessage message, String bodyHash) throws MessagingException {
+        message.removeHeader(SIGNATURE_HEADER);
+
+        StringBuilder signedNames = new StringBuilder();
+        StringBuilder signingInput = new StringBuilder();
+        for (String name : SIGNED_HEADERS) {
+            String value = message.getHeader(name, null);
+            if (value == null) {
+                continue;
+            }
+            if (signedNames.length() > 0) {
+                signedNames.append(':');
+            }
+            signedNames.append(name);
+            signingInput.append(canonicalizeHeader(name, value)).append("\r\n");
+        }
+
+        String signatureValue = "v=1; a=rsa-sha256; c=relaxed/relaxed; d=" + domain + "; s=" + selector
+                + "; t=" + (System.currentTimeMillis() / 1000) + "; h=" + signedNames + "; bh=" + bodyHash + "; b=";
+        signingInput.append(canonicalizeHeader(SIGNATURE_HEADER, signatureValue));
+
+        try {
+            Signature signature = signatures.get();
+            signature.update(signingInput.toString().getBytes(StandardCharsets.UTF_8));
+            String b = Base64.getEncoder().encodeToString(signature.sign());
+            message.setHeader(SIGNATURE_HEADER, signatureValue + b);
+        } catch (GeneralSecurityException e) {
+            throw new MessagingException("DKIM signing failed", e);
+        }
+    }
+
+    /**
+     * Encodes the body exactly as JavaMail writes it for the pinned transfer encoding
+     */
+    private static byte[] encodeBody(byte[] content, String transferEncoding) throws MessagingException {
+        try {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(content.length + content.length / 2);
+            OutputStream encoder = MimeUtility.encode(encoded, transferEncoding);
+            encoder.write(content);
+            encoder.flush();
+            return encoded.toByteArray();
+        } catch (IOException e) {
+            throw new MessagingException("Failed to encode message body", e);
+        }
+    }
+
+    /**
+     * Relaxed body canonicalization (RFC 6376 section 3.4.4)
+     */
+    static byte[] canonicalizeBody(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 2);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int pendingEmptyLines = 0;
+        int i = 0;
+
+        while (i < body.length) {
+            int end = i;
+            while (end < body.length && body[end] != '\r' && body[end] != '\n') {
+                end++;
+            }
+
+            // Collapse whitespace runs and drop trailing whitespace
+            line.reset();
+            boolean pendingSpace = false;
+            for (int j = i; j < end; j++) {
+                byte c = body[j];
+                if (c == ' ' || c == '\t') {
+                    pendingSpace = true;
+                } else {
+                    if (pendingSpace) {
+                        line.write(' ');
+                        pendingSpace = false;
+                    }
+                    line.write(c);
+                }
+            }
+
+            // Defer empty lines so trailing ones can be dropped
+            if (line.size() == 0) {
+                pendingEmptyLines++;
+            } else {
+                for (; pendingEmptyLines > 0; pendingEmptyLines--) {
+                    out.write('\r');
+                    out.write('\n');
+                }
+                out.write(line.toByteArray(), 0, line.size());
+                out.write('\r');
+                out.write('\n');
+            }
+
+            i = end;
+            if (i < body.length && body[i] == '\r') {
+                i++;
+            }
+            if (i < body.length && body[i] == '\n') {
+                i++;
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Relaxed header canonicalization (RFC 6376 section 3.4.2)
+     */
+    static String canonicalizeHeader(String name, String value) {
+        String unfolded = value.replaceAll("\r?\n", "");
+        return name.toLowerCase(Locale.ROOT) + ":" + unfolded.replaceAll("[ \t]+", " ").trim();
+    }
+
+    private Signature newSignature() {
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(privateKey);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialize DKIM signature", e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Loads a PKCS#8 PEM (or DER) RSA private key
+     */
+    private static PrivateKey loadPrivateKey(String path) throws GeneralSecurityException, IOException {
+        byte[] keyBytes = Files.readAllBytes(Paths.get(path));
+        String pem = new String(keyBytes, StandardCharsets.US_ASCII);
+        if (pem.contains("-----BEGIN")) {
+            if (pem.contains("BEGIN RSA PRIVATE KEY")) {
+                throw new GeneralSecurityException("DKIM key must be PKCS#8 (BEGIN PRIVATE KEY): " + path);
+            }
+            String base64 = pem.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+            keyBytes = Base64.getDecoder().decode(base64);
+        }
+        return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(keyBytes));
+    }
+}
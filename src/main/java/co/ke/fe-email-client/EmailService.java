@@ -5,21 +5,65 @@ import javax.mail.internet.*;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
- * NIS-Level Email Service with Enhanced Security and Logging
+ * NIS-Level Email Service with Enhanced Security and Logging.
+ * Owns one sending pool for its lifetime so per-thread signing state is reused
+ * across templates; close it when the campaign is done.
  */
-public class EmailService {
+public class EmailService implements AutoCloseable {
     private final ConfigurationManager.SmtpConfig smtpConfig;
+    private final ConfigurationManager.DeliveryConfig deliveryConfig;
     private final AuditLogger auditLogger;
+    private final RecipientPreparer recipientPreparer;
+    private final DkimSigner dkimSigner;
+    private final TemplateCompiler templateCompiler = new TemplateCompiler();
+    private final ExecutorService sendExecutor;
+    private InternetAddress fromAddress;
     
     public EmailService(ConfigurationManager.SmtpConfig smtpConfig) {
+        this(smtpConfig, ConfigurationManager.DeliveryConfig.defaults(), (DkimSigner) null);
+    }
+    
+    public EmailService(ConfigurationManager.SmtpConfig smtpConfig, ConfigurationManager.DkimConfig dkimConfig) 
+            throws GeneralSecurityException, IOException {
+        this(smtpConfig, ConfigurationManager.DeliveryConfig.defaults(), dkimConfig);
+    }
+    
+    public EmailService(ConfigurationManager.SmtpConfig smtpConfig, ConfigurationManager.DeliveryConfig deliveryConfig,
+                        ConfigurationManager.DkimConfig dkimConfig) throws GeneralSecurityException, IOException {
+        this(smtpConfig, deliveryConfig, dkimConfig.enabled ? new DkimSigner(dkimConfig) : null);
+        
+        if (dkimSigner != null) {
+            auditLogger.logInfo("DKIM signing enabled for domain " + dkimConfig.domain + " (selector " + dkimConfig.selector + ")");
+        }
+    }
+    
+    private EmailService(ConfigurationManager.SmtpConfig smtpConfig, ConfigurationManager.DeliveryConfig deliveryConfig,
+                         DkimSigner dkimSigner) {
         this.smtpConfig = smtpConfig;
+        this.deliveryConfig = deliveryConfig;
         this.auditLogger = new AuditLogger();
+        this.recipientPreparer = new RecipientPreparer();
+        this.dkimSigner = dkimSigner;
+        this.sendExecutor = Executors.newFixedThreadPool(deliveryConfig.workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "email-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
@@ -27,27 +71,135 @@ public class EmailService {
      */
     public void sendEmailToRecipients(List<ConfigurationManager.Recipient> recipients, 
                                     String subject, String htmlContent) throws MessagingException {
+        sendToPreparedRecipients(prepareRecipients(recipients), subject, 
+                TemplateCompiler.defaultTransferEncoding(htmlContent), htmlContent);
+    }
+    
+    /**
+     * Parses and validates recipient addresses once, grouped by destination domain.
+     * The result can be reused across templates.
+     */
+    public RecipientPreparer.PreparedRecipients prepareRecipients(List<ConfigurationManager.Recipient> recipients) {
+        return prepareRecipients(RecipientStore.of(recipients));
+    }
+    
+    /**
+     * Parses and validates stored recipient addresses once, grouped by destination domain
+     */
+    public RecipientPreparer.PreparedRecipients prepareRecipients(RecipientStore recipients) {
+        RecipientPreparer.PreparedRecipients prepared = recipientPreparer.prepare(recipients);
+        
+        for (RecipientPreparer.RejectedRecipient rejected : prepared.rejected) {
+            auditLogger.logWarning("Skipping invalid address for: " + rejected.name 
+                    + " (" + rejected.email + "): " + rejected.reason);
+        }
+        auditLogger.logInfo("Prepared " + prepared.acceptedCount() + " recipients across " 
+                + prepared.domainCount() + " domains (" + prepared.rejected.size() + " rejected)");
+        
+        return prepared;
+    }
+    
+    /**
+     * Sends the same email body to all prepared recipients; the DKIM body hash is computed once
+     */
+    public void sendToPreparedRecipients(RecipientPreparer.PreparedRecipients prepared, String subject, String transferEncoding,
+                                       String htmlContent) throws MessagingException {
+        String bodyHash = dkimSigner != null ? dkimSigner.bodyHash(htmlContent, transferEncoding) : null;
+        sendBatch(prepared, subject, transferEncoding, recipient -> htmlContent, bodyHash);
+    }
+    
+    /**
+     * Sends personalized email to prepared recipients
+     */
+    public void sendToPreparedRecipients(RecipientPreparer.PreparedRecipients prepared, String subject, String transferEncoding,
+                                       Function<RecipientPreparer.PreparedRecipient, String> contentRenderer) 
+                                       throws MessagingException {
+        sendBatch(prepared, subject, transferEncoding, contentRenderer, null);
+    }
+    
+    /**
+     * Runs one send operation. Work is scheduled one message at a time; each destination domain
+     * holds at most its configured number of in-flight sends and goes to the back of the pool queue
+     * after every message, so a slow domain cannot stall the others.
+     */
+    private void sendBatch(RecipientPreparer.PreparedRecipients prepared, String subject, String transferEncoding,
+                           Function<RecipientPreparer.PreparedRecipient, String> contentRenderer, String bodyHash) 
+                           throws MessagingException {
         
-        auditLogger.logInfo("Starting email send operation to " + recipients.size() + " recipients");
+        if (sendExecutor.isShutdown()) {
+            throw new MessagingException("Email service is closed");
+        }
+        auditLogger.logInfo("Starting email send operation to " + prepared.acceptedCount() + " recipients");
         
         Properties props = createSmtpProperties();
         Session session = createSecureSession(props);
+        InternetAddress from = getFromAddress();
         
-        int successCount = 0;
-        int failureCount = 0;
+        SendBatch batch = new SendBatch(session, from, prepared, subject, transferEncoding, contentRenderer, bodyHash);
         
-        for (ConfigurationManager.Recipient recipient : recipients) {
-            try {
-                sendSingleEmail(session, recipient, subject, htmlContent);
-                successCount++;
-                auditLogger.logInfo("[OK] Email sent successfully to: " + recipient.name + " (" + recipient.email + ")");
-            } catch (MessagingException e) {
-                failureCount++;
-                auditLogger.logError("[XX] Failed to send email to: " + recipient.name + " (" + recipient.email + ")", e);
+        // Start each domain's slots, interleaved across domains
+        List<List<DomainSlot>> rounds = new ArrayList<>();
+        for (int d = 0; d < prepared.domainQueues.length; d++) {
+            int[] queue = prepared.domainQueues[d];
+            if (queue.length == 0) {
+                continue;
+            }
+            AtomicInteger cursor = new AtomicInteger();
+            int slots = Math.min(deliveryConfig.limitFor(prepared.domain(d)), queue.length);
+            for (int i = 0; i < slots; i++) {
+                if (rounds.size() <= i) {
+                    rounds.add(new ArrayList<>());
+                }
+                rounds.get(i).add(new DomainSlot(batch, queue, cursor));
+            }
+        }
+        
+        try {
+            for (List<DomainSlot> round : rounds) {
+                round.forEach(sendExecutor::execute);
             }
+            while (!batch.remaining.await(1, TimeUnit.MINUTES)) {
+                auditLogger.logInfo("Still sending... Success: " + batch.successCount.get() 
+                        + ", Failures: " + batch.failureCount.get());
+            }
+        } catch (RejectedExecutionException e) {
+            batch.cancelled = true;
+            throw new MessagingException("Email service closed while sending", e);
+        } catch (InterruptedException e) {
+            batch.cancelled = true;
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while sending emails", e);
         }
         
-        auditLogger.logInfo("Email operation completed. Success: " + successCount + ", Failures: " + failureCount);
+        int failures = batch.failureCount.get() + prepared.rejected.size();
+        auditLogger.logInfo("Email operation completed. Success: " + batch.successCount.get() + ", Failures: " + failures);
+    }
+    
+    /**
+     * Sends one queued message for the batch, counting any failure against the recipient
+     */
+    private void sendQueuedEmail(SendBatch batch, int index) {
+        try {
+            RecipientPreparer.PreparedRecipient recipient = batch.prepared.recipient(index);
+            sendSingleEmail(batch.session, batch.from, recipient, batch.subject, batch.transferEncoding, 
+                    batch.contentRenderer.apply(recipient), batch.bodyHash);
+            batch.successCount.incrementAndGet();
+            auditLogger.logInfo("[OK] Email sent successfully to: " + recipient.name() + " (" + recipient.email() + ")");
+        } catch (MessagingException | RuntimeException e) {
+            batch.failureCount.incrementAndGet();
+            auditLogger.logError("[XX] Failed to send email to: " + batch.prepared.store.name(index) 
+                    + " (" + batch.prepared.store.email(index) + ")", e);
+        }
+    }
+    
+    /**
+     * Returns the sender address, parsed once on first use
+     */
+    private synchronized InternetAddress getFromAddress() throws AddressException {
+        if (fromAddress == null) {
+            fromAddress = RecipientPreparer.parseAddress(smtpConfig.username);
+        }
+        return fromAddress;
     }
     
     /**
@@ -95,12 +247,23 @@ public class EmailService {
     /**
      * Sends single email with enhanced security headers
      */
-    private void sendSingleEmail(Session session, ConfigurationManager.Recipient recipient, 
-                               String subject, String htmlContent) throws MessagingException {
+    private void sendSingleEmail(Session session, InternetAddress from, RecipientPreparer.PreparedRecipient recipient, 
+                               String subject, String transferEncoding, String htmlContent, String bodyHash) 
+                               throws MessagingException {
         
-        Message message = new MimeMessage(session);
-        message.setFrom(new InternetAddress(smtpConfig.username));
-        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(recipient.email));
+        // Set HTML content, signed with DKIM when configured
+        Message message;
+        if (dkimSigner != null && bodyHash != null) {
+            message = dkimSigner.createSignedMessage(session, htmlContent, transferEncoding, bodyHash);
+        } else if (dkimSigner != null) {
+            message = dkimSigner.createSignedMessage(session, htmlContent, transferEncoding);
+        } else {
+            message = new MimeMessage(session);
+            message.setContent(htmlContent, "text/html; charset=utf-8");
+            message.setHeader("Content-Transfer-Encoding", transferEncoding);
+        }
+        message.setFrom(from);
+        message.setRecipient(Message.RecipientType.TO, recipient.address);
         message.setSubject(subject);
         
         // Enhanced email headers for security and deliverability
@@ -108,10 +271,6 @@ public class EmailService {
         message.setHeader("X-Priority", "3");
         message.setHeader("X-MSMail-Priority", "Normal");
         message.setHeader("Importance", "Normal");
-        message.setHeader("Content-Type", "text/html; charset=UTF-8");
-        
-        // Set HTML content
-        message.setContent(htmlContent, "text/html; charset=utf-8");
         
         // Send with retry logic
         int maxRetries = 3;
@@ -123,7 +282,7 @@ public class EmailService {
                 if (attempt == maxRetries) {
                     throw e;
                 }
-                auditLogger.logWarning("Retry attempt " + attempt + " for " + recipient.email);
+                auditLogger.logWarning("Retry attempt " + attempt + " for " + recipient.email());
                 try {
                     Thread.sleep(2000 * attempt); // Exponential backoff
                 } catch (InterruptedException ie) {
@@ -135,14 +294,114 @@ public class EmailService {
     }
 
     /**
-     * Loads email template from resources
+     * Loads email template from resources and compiles it once for sending
      */
-    public String loadTemplate(String templatePath) throws IOException {
+    public TemplateCompiler.CompiledTemplate loadTemplate(String templatePath) throws IOException, MessagingException {
+        String html;
         try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(templatePath)) {
             if (inputStream == null) {
                 throw new IOException("Template not found: " + templatePath);
             }
-            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            html = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        
+        TemplateCompiler.CompiledTemplate compiled = templateCompiler.compile(html);
+        auditLogger.logInfo("Compiled template " + templatePath + ": " + compiled.originalSize + " -> " 
+                + compiled.compiledSize + " bytes, on the wire " + compiled.originalWireSize + " bytes (" 
+                + compiled.originalTransferEncoding + ") -> " + compiled.compiledWireSize + " bytes (" 
+                + compiled.transferEncoding + ")");
+        return compiled;
+    }
+    
+    /**
+     * Shuts down the sending pool once all templates have been sent
+     */
+    @Override
+    public void close() {
+        sendExecutor.shutdown();
+    }
+    
+    /**
+     * Shared state for one send operation
+     */
+    private static class SendBatch {
+        final Session session;
+        final InternetAddress from;
+        final RecipientPreparer.PreparedRecipients prepared;
+        final String subject, transferEncoding;
+        // Precomputed DKIM body hash when every recipient gets the same body, otherwise null
+        final String bodyHash;
+        final Function<RecipientPreparer.PreparedRecipient, String> contentRenderer;
+        final AtomicInteger successCount = new AtomicInteger();
+        final AtomicInteger failureCount = new AtomicInteger();
+        final CountDownLatch remaining;
+        volatile boolean cancelled;
+        
+        SendBatch(Session session, InternetAddress from, RecipientPreparer.PreparedRecipients prepared, String subject,
+                  String transferEncoding, Function<RecipientPreparer.PreparedRecipient, String> contentRenderer,
+                  String bodyHash) {
+            this.session = session;
+            this.from = from;
+            this.prepared = prepared;
+            this.subject = subject;
+            this.transferEncoding = transferEncoding;
+            this.contentRenderer = contentRenderer;
+            this.bodyHash = bodyHash;
+            this.remaining = new CountDownLatch(prepared.acceptedCount());
+        }
+    }
+    
+    /**
+     * One in-flight send permit for a domain: sends a single message, then requeues itself
+     * behind the other domains' work while the domain still has recipients
+     */
+    private class DomainSlot implements Runnable {
+        private final SendBatch batch;
+        private final int[] queue;
+        private final AtomicInteger cursor;
+        
+        DomainSlot(SendBatch batch, int[] queue, AtomicInteger cursor) {
+            this.batch = batch;
+            this.queue = queue;
+            this.cursor = cursor;
+        }
+        
+        @Override
+        public void run() {
+            if (batch.cancelled) {
+                return;
+            }
+            int position = cursor.getAndIncrement();
+            if (position >= queue.length) {
+                return;
+            }
+            try {
+                sendQueuedEmail(batch, queue[position]);
+            } finally {
+                batch.remaining.countDown();
+                if (!batch.cancelled && cursor.get() < queue.length) {
+                    try {
+                        sendExecutor.execute(this);
+                    } catch (RejectedExecutionException e) {
+                        failRemaining();
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Counts the domain's unsent recipients as failures once the service has been closed,
+         * so the batch still completes
+         */
+        private void failRemaining() {
+            int position;
+            while ((position = cursor.getAndIncrement()) < queue.length) {
+                int index = queue[position];
+                batch.failureCount.incrementAndGet();
+                auditLogger.logError("[XX] Not sent, email service closed: " + batch.prepared.store.name(index) 
+                        + " (" + batch.prepared.store.email(index) + ")", null);
+                batch.remaining.countDown();
+            }
         }
     }
     
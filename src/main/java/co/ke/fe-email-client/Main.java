@@ -14,22 +14,30 @@ public class Main {
             // Load configuration
             ConfigurationManager configManager = new ConfigurationManager();
             
-            // Get SMTP configuration
+            // Read every setting up front
             ConfigurationManager.SmtpConfig smtpConfig = configManager.getSmtpConfig();
-            
-            // Initialize email service
-            EmailService emailService = new EmailService(smtpConfig);
-            
-            // Get active recipients and templates
-            List<ConfigurationManager.Recipient> recipients = configManager.getActiveRecipients();
+            ConfigurationManager.DeliveryConfig deliveryConfig = configManager.getDeliveryConfig();
+            ConfigurationManager.DkimConfig dkimConfig = configManager.getDkimConfig();
             List<ConfigurationManager.EmailTemplate> templates = configManager.getActiveTemplates();
+            RecipientStore recipients = configManager.getActiveRecipientStore();
             
-            // Initialize template processor
-            EmailTemplateProcessor processor = new EmailTemplateProcessor();
+            // The recipient store holds everything needed from here on; release the XML document
+            // so its per-recipient DOM nodes are not kept alive for the whole campaign
+            configManager = null;
             
-            // Send emails for each active template
-            for (ConfigurationManager.EmailTemplate template : templates) {
-                sendEmailsForTemplate(emailService, processor, recipients, template);
+            // Initialize email service with optional DKIM signing; one instance serves the whole campaign
+            try (EmailService emailService = new EmailService(smtpConfig, deliveryConfig, dkimConfig)) {
+                
+                // Parse and validate recipient addresses once for all templates
+                RecipientPreparer.PreparedRecipients preparedRecipients = emailService.prepareRecipients(recipients);
+                
+                // Initialize template processor
+                EmailTemplateProcessor processor = new EmailTemplateProcessor();
+                
+                // Send emails for each active template
+                for (ConfigurationManager.EmailTemplate template : templates) {
+                    sendEmailsForTemplate(emailService, processor, preparedRecipients, template);
+                }
             }
             
             AsciiArt.printSuccessMessage();
@@ -42,29 +50,52 @@ public class Main {
     }
     
     private static void sendEmailsForTemplate(EmailService emailService, EmailTemplateProcessor processor,
-            List<ConfigurationManager.Recipient> recipients, ConfigurationManager.EmailTemplate template) 
+            RecipientPreparer.PreparedRecipients recipients, ConfigurationManager.EmailTemplate template) 
             throws IOException, MessagingException {
         
         AsciiArt.printSendingEmail(template.name + " Email");
         
-        // Load template content
-        String templateContent = emailService.loadTemplate(template.path);
+        // Load and compile template content
+        TemplateCompiler.CompiledTemplate compiledTemplate = emailService.loadTemplate(template.path);
+        String templateContent = compiledTemplate.html;
         
-        // Process and send email for each recipient individually
-        for (ConfigurationManager.Recipient recipient : recipients) {
-            String processedTemplate = processTemplateForRecipient(processor, templateContent, template.name, recipient);
-            
-            // Send to individual recipient
-            List<ConfigurationManager.Recipient> singleRecipient = List.of(recipient);
-            emailService.sendEmailToRecipients(singleRecipient, template.subject, processedTemplate);
+        if (isPersonalized(template.name)) {
+            // Process and send email for each recipient individually
+            emailService.sendToPreparedRecipients(recipients, template.subject, compiledTemplate.transferEncoding, 
+                    recipient -> processTemplateForRecipient(processor, templateContent, template.name, recipient));
+        } else {
+            // Same body for everyone: process it once so it is also DKIM-hashed once
+            emailService.sendToPreparedRecipients(recipients, template.subject, compiledTemplate.transferEncoding, 
+                    processSharedTemplate(processor, templateContent, template.name));
+        }
+    }
+    
+    private static boolean isPersonalized(String templateName) {
+        switch (templateName.toLowerCase()) {
+            case "welcome":
+            case "trial-expiration":
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    private static String processSharedTemplate(EmailTemplateProcessor processor, String templateContent, 
+            String templateName) {
+        
+        switch (templateName.toLowerCase()) {
+            case "product-update":
+                return processor.processProductUpdateTemplate(templateContent);
+            default:
+                return templateContent;
         }
     }
     
     private static String processTemplateForRecipient(EmailTemplateProcessor processor, String templateContent, 
-            String templateName, ConfigurationManager.Recipient recipient) {
+            String templateName, RecipientPreparer.PreparedRecipient recipient) {
         
-        // Extract first name from full name (simple approach)
-        String firstName = extractFirstName(recipient.name);
+        // First name is precomputed once by the recipient store
+        String firstName = recipient.firstName();
         
         // Process template based on type with recipient-specific data
         switch (templateName.toLowerCase()) {
@@ -80,18 +111,8 @@ public class Main {
                     "4.5", 
                     "12.0"
                 );
-            case "product-update":
-                return processor.processProductUpdateTemplate(templateContent);
             default:
                 return templateContent;
         }
     }
-    
-    private static String extractFirstName(String fullName) {
-        if (fullName == null || fullName.trim().isEmpty()) {
-            return "Valued Customer";
-        }
-        String[] nameParts = fullName.trim().split("\\s+");
-        return nameParts[0];
-    }
 } 
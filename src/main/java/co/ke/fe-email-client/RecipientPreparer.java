@@ -0,0 +1,161 @@
+package co.ke.fe_email_client;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Recipient preparation stage: groups validated recipients into per-destination-domain
+ * queues of store indexes. Addresses are parsed and validated once when the store is built;
+ * a lightweight InternetAddress is only created, without re-parsing, for the message being sent.
+ */
+public class RecipientPreparer {
+
+    /**
+     * Groups stored recipients by destination domain using the store's validation flags
+     */
+    public PreparedRecipients prepare(RecipientStore store) {
+        int[] queueSizes = new int[store.domainCount()];
+        List<RejectedRecipient> rejected = new ArrayList<>();
+
+        for (int i = 0; i < store.size(); i++) {
+            if (store.isValid(i)) {
+                queueSizes[store.domainIndex(i)]++;
+            } else {
+                rejected.add(new RejectedRecipient(store.name(i), store.email(i), rejectionReason(store.email(i))));
+            }
+        }
+
+        int[][] domainQueues = new int[queueSizes.length][];
+        for (int d = 0; d < queueSizes.length; d++) {
+            domainQueues[d] = new int[queueSizes[d]];
+        }
+        int[] fill = new int[queueSizes.length];
+        for (int i = 0; i < store.size(); i++) {
+            if (store.isValid(i)) {
+                int d = store.domainIndex(i);
+                domainQueues[d][fill[d]++] = i;
+            }
+        }
+
+        return new PreparedRecipients(store, domainQueues, rejected);
+    }
+
+    /**
+     * Parses and strictly validates a single address
+     */
+    public static InternetAddress parseAddress(String email) throws AddressException {
+        if (email == null || email.trim().isEmpty()) {
+            throw new AddressException("Empty email address");
+        }
+
+        String trimmed = email.trim();
+        InternetAddress address = new InternetAddress(trimmed, true);
+        address.validate();
+        if (domainOf(address).isEmpty()) {
+            throw new AddressException("Missing domain", trimmed);
+        }
+        return address;
+    }
+
+    private static String rejectionReason(String email) {
+        try {
+            parseAddress(email);
+            return "Invalid address";
+        } catch (AddressException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static String domainOf(InternetAddress address) {
+        String email = address.getAddress();
+        int at = email.lastIndexOf('@');
+        return at < 0 ? "" : email.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // Inner classes for prepared recipient data
+
+    /**
+     * A recipient materialized for the single message being sent
+     */
+    public static class PreparedRecipient {
+        public final int index;
+        public final InternetAddress address;
+        private final RecipientStore store;
+
+        public PreparedRecipient(RecipientStore store, int index, InternetAddress address) {
+            this.store = store;
+            this.index = index;
+            this.address = address;
+        }
+
+        public String name() {
+            return store.name(index);
+        }
+
+        public String email() {
+            return address.getAddress();
+        }
+
+        public String firstName() {
+            return store.firstName(index);
+        }
+    }
+
+    public static class RejectedRecipient {
+        public final String name, email, reason;
+
+        public RejectedRecipient(String name, String email, String reason) {
+            this.name = name;
+            this.email = email;
+            this.reason = reason;
+        }
+    }
+
+    public static class PreparedRecipients {
+        public final RecipientStore store;
+        /** Store indexes of valid recipients, grouped by the store's domain index */
+        public final int[][] domainQueues;
+        public final List<RejectedRecipient> rejected;
+
+        public PreparedRecipients(RecipientStore store, int[][] domainQueues, List<RejectedRecipient> rejected) {
+            this.store = store;
+            this.domainQueues = domainQueues;
+            this.rejected = rejected;
+        }
+
+        public String domain(int domainIndex) {
+            return store.domain(domainIndex);
+        }
+
+        public int acceptedCount() {
+            int count = 0;
+            for (int[] queue : domainQueues) {
+                count += queue.length;
+            }
+            return count;
+        }
+
+        public int domainCount() {
+            int count = 0;
+            for (int[] queue : domainQueues) {
+                if (queue.length > 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Materializes a recipient for the message about to be sent. The store validated
+         * and normalized the address at build time, so it is set directly without parsing again.
+         */
+        public PreparedRecipient recipient(int index) {
+            InternetAddress address = new InternetAddress();
+            address.setAddress(store.email(index));
+            return new PreparedRecipient(store, index, address);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package co.ke.fe_email_client;
+
+import javax.mail.internet.AddressException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compact, read-only recipient store shared across templates.
+ * Records are encoded once into a single off-heap buffer, indexed by a primitive offset array.
+ * Stores that outgrow the spill threshold are written to a temporary file and memory-mapped.
+ *
+ * Addresses are validated and their domains dictionary-encoded at build time,
+ * so preparing and queueing recipients needs no per-recipient heap objects.
+ *
+ * Records are addressed by int offsets into one buffer, so the encoded store is limited
+ * to 2 GB whether it is held in direct memory or memory-mapped; the builder throws
+ * IllegalStateException past that. Mapping lets a store exceed the heap and direct-memory
+ * limits, not that bound.
+ *
+ * Record layout: [flags: byte][type index: byte][domain index: int][name length: u16][name UTF-8]
+ *                [email length: u16][email UTF-8][first name start: u16][first name length: u16]
+ */
+public class RecipientStore {
+
+    public static final String DEFAULT_FIRST_NAME = "Valued Customer";
+
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+    private static final int MAX_TYPES = 0xFF;
+    private static final byte FLAG_VALID_ADDRESS = 1;
+    private static final int HEADER_BYTES = 1 + 1 + 4;
+
+    private final ByteBuffer buffer;
+    private final int[] offsets;
+    private final String[] types;
+    private final String[] domains;
+
+    private RecipientStore(ByteBuffer buffer, int[] offsets, String[] types, String[] domains) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.types = types;
+        this.domains = domains;
+    }
+
+    /**
+     * Builds a store from already materialized recipients
+     */
+    public static RecipientStore of(List<ConfigurationManager.Recipient> recipients) {
+        Builder builder = new Builder();
+        for (ConfigurationManager.Recipient recipient : recipients) {
+            builder.add(recipient.name, recipient.email, recipient.type);
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Number of distinct domains among the valid addresses
+     */
+    public int domainCount() {
+        return domains.length;
+    }
+
+    public String domain(int domainIndex) {
+        return domains[domainIndex];
+    }
+
+    /**
+     * Whether the address passed strict validation when the store was built.
+     * For valid records email() returns the parsed bare address.
+     */
+    public boolean isValid(int index) {
+        return (buffer.get(offsets[index]) & FLAG_VALID_ADDRESS) != 0;
+    }
+
+    /**
+     * Dictionary index of the recipient's lower-cased domain, or -1 for an invalid address
+     */
+    public int domainIndex(int index) {
+        return buffer.getInt(offsets[index] + 2);
+    }
+
+    public String type(int index) {
+        return types[buffer.get(offsets[index] + 1) & 0xFF];
+    }
+
+    public String name(int index) {
+        return readString(offsets[index] + HEADER_BYTES);
+    }
+
+    public String email(int index) {
+        int nameOffset = offsets[index] + HEADER_BYTES;
+        return readString(nameOffset + 2 + readLength(nameOffset));
+    }
+
+    /**
+     * Returns the precomputed first name, or DEFAULT_FIRST_NAME when the name is blank
+     */
+    public String firstName(int index) {
+        int nameOffset = offsets[index] + HEADER_BYTES;
+        int emailOffset = nameOffset + 2 + readLength(nameOffset);
+        int derivedOffset = emailOffset + 2 + readLength(emailOffset);
+        int length = readLength(derivedOffset + 2);
+        if (length == 0) {
+            return DEFAULT_FIRST_NAME;
+        }
+        return decode(nameOffset + 2 + readLength(derivedOffset), length);
+    }
+
+    private int readLength(int offset) {
+        return buffer.getChar(offset);
+    }
+
+    private String readString(int offset) {
+        return decode(offset + 2, readLength(offset));
+    }
+
+    private String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Incrementally encodes recipients into a growing direct buffer,
+     * spilling to a memory-mapped temporary file past the threshold
+     */
+    public static class Builder {
+        private static final int INITIAL_CAPACITY = 256 * 1024;
+        private static final long MAX_BUFFER_BYTES = Integer.MAX_VALUE - 8;
+
+        private final long spillThreshold;
+        private final Map<String, Integer> typeIndexes = new HashMap<>();
+        private final List<String> types = new ArrayList<>();
+        private final Map<String, Integer> domainIndexes = new HashMap<>();
+        private final List<String> domains = new ArrayList<>();
+
+        private ByteBuffer staging = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+        private int[] offsets = new int[64];
+        private int count;
+        private long position;
+        private Path spillFile;
+        private FileChannel spillChannel;
+
+        /**
+         * Spills once the encoded data would exceed a quarter of the maximum heap,
+         * which is also the default ceiling for direct memory.
+         * A single direct buffer cannot exceed 2 GB, so the threshold is capped below that.
+         */
+        public Builder() {
+            this(Runtime.getRuntime().maxMemory() / 4);
+        }
+
+        public Builder(long spillThreshold) {
+            this.spillThreshold = Math.min(MAX_BUFFER_BYTES, Math.max(INITIAL_CAPACITY, spillThreshold));
+        }
+
+        public Builder add(String name, String email, String type) {
+            String safeName = name == null ? "" : name;
+            String safeEmail = email == null ? "" : email;
+            byte[] nameBytes = encode(safeName);
+            byte[] emailBytes;
+
+            // Validate once here so later stages only read the flag and domain index.
+            // Valid records keep the parsed bare address, so senders can use it without re-parsing.
+            byte flags = 0;
+            int domainIndex = -1;
+            try {
+                String address = RecipientPreparer.parseAddress(safeEmail).getAddress();
+                domainIndex = domainIndex(address.substring(address.lastIndexOf('@') + 1).toLowerCase(Locale.ROOT));
+                flags |= FLAG_VALID_ADDRESS;
+                emailBytes = encode(address);
+            } catch (AddressException e) {
+                // Left unflagged with the original text; the reason is recomputed only for reporting
+                emailBytes = encode(safeEmail);
+            }
+
+            // Precompute the first name as a byte range within the encoded name
+            String trimmed = safeName.trim();
+            int firstStart = 0;
+            int firstLength = 0;
+            if (!trimmed.isEmpty()) {
+                int leading = safeName.indexOf(trimmed);
+                String firstName = trimmed.split("\\s+", 2)[0];
+                firstStart = encode(safeName.substring(0, leading)).length;
+                firstLength = encode(firstName).length;
+            }
+
+            int recordSize = HEADER_BYTES + 2 + nameBytes.length + 2 + emailBytes.length + 2 + 2;
+            if (position + recordSize > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Recipient store exceeds 2 GB limit at " + count + " recipients");
+            }
+            ensureCapacity(recordSize);
+
+            staging.put(flags);
+            staging.put((byte) typeIndex(type == null ? "" : type));
+            staging.putInt(domainIndex);
+            staging.putChar((char) nameBytes.length).put(nameBytes);
+            staging.putChar((char) emailBytes.length).put(emailBytes);
+            staging.putChar((char) firstStart).putChar((char) firstLength);
+
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = (int) position;
+            position += recordSize;
+            return this;
+        }
+
+        public RecipientStore build() {
+            ByteBuffer data;
+            if (spillChannel == null) {
+                staging.flip();
+                data = staging.asReadOnlyBuffer();
+            } else {
+                try {
+                    flushStaging();
+                    data = spillChannel.map(FileChannel.MapMode.READ_ONLY, 0, position);
+                    spillChannel.close();
+                    // The mapping stays valid after the file is unlinked
+                    Files.deleteIfExists(spillFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to map recipient store", e);
+                }
+            }
+            staging = null;
+            return new RecipientStore(data, Arrays.copyOf(offsets, count), types.toArray(new String[0]),
+                    domains.toArray(new String[0]));
+        }
+
+        private int typeIndex(String type) {
+            Integer index = typeIndexes.get(type);
+            if (index == null) {
+                if (types.size() > MAX_TYPES) {
+                    throw new IllegalArgumentException("Too many distinct recipient types: " + type);
+                }
+                index = types.size();
+                types.add(type);
+                typeIndexes.put(type, index);
+            }
+            return index;
+        }
+
+        private int domainIndex(String domain) {
+            Integer index = domainIndexes.get(domain);
+            if (index == null) {
+                index = domains.size();
+                domains.add(domain);
+                domainIndexes.put(domain, index);
+            }
+            return index;
+        }
+
+        private void ensureCapacity(int recordSize) {
+            if (staging.remaining() >= recordSize) {
+                return;
+            }
+            if (spillChannel != null) {
+                flushStaging();
+                return;
+            }
+
+            long required = (long) staging.position() + recordSize;
+            if (required > spillThreshold) {
+                spillToFile();
+                return;
+            }
+
+            long grown = Math.min(spillThreshold, Math.max(required, (long) staging.capacity() * 2));
+            ByteBuffer larger = ByteBuffer.allocateDirect((int) grown);
+            staging.flip();
+            larger.put(staging);
+            staging = larger;
+        }
+
+        private void spillToFile() {
+            try {
+                spillFile = Files.createTempFile("recipient-store", ".bin");
+                spillFile.toFile().deleteOnExit();
+                spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create recipient store file", e);
+            }
+            flushStaging();
+            // Keep a modest write buffer once spilling
+            if (staging.capacity() > INITIAL_CAPACITY) {
+                staging = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+            }
+        }
+
+        private void flushStaging() {
+            staging.flip();
+            try {
+                while (staging.hasRemaining()) {
+                    spillChannel.write(staging);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write recipient store file", e);
+            }
+            staging.clear();
+        }
+
+        private static byte[] encode(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_FIELD_BYTES) {
+                throw new IllegalArgumentException("Recipient field exceeds " + MAX_FIELD_BYTES + " bytes");
+            }
+            return bytes;
+        }
+    }
+}
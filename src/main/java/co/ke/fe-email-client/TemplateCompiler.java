@@ -0,0 +1,625 @@
+package co.ke.fe_email_client;
+
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeUtility;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles HTML email templates once at load time to reduce bytes on the wire:
+ * inlines simple CSS rules, strips comments and insignificant whitespace,
+ * and picks the cheapest transfer encoding. Minified output keeps short lines
+ * so ASCII-only templates can still go out as 7bit instead of paying the
+ * quoted-printable overhead (mostly =3D for every attribute).
+ */
+public class TemplateCompiler {
+
+    private static final Pattern STYLE_BLOCK = Pattern.compile("(?is)<style([^>]*)>(.*?)</style>");
+    private static final Pattern TAG = Pattern.compile("(?s)<(/?)([a-zA-Z][a-zA-Z0-9]*)((?:[^>\"']|\"[^\"]*\"|'[^']*')*)>");
+    private static final Pattern STYLE_ATTRIBUTE = Pattern.compile("(?is)\\sstyle\\s*=\\s*(\"([^\"]*)\"|'([^']*)')");
+    private static final Pattern CLASS_ATTRIBUTE = Pattern.compile("(?is)\\sclass\\s*=\\s*(\"([^\"]*)\"|'([^']*)')");
+    private static final Pattern ID_ATTRIBUTE = Pattern.compile("(?is)\\sid\\s*=\\s*(\"([^\"]*)\"|'([^']*)')");
+    private static final Pattern SIMPLE_SELECTOR = Pattern.compile("[a-zA-Z0-9_\\-.#\\s]+");
+    private static final Pattern COMPOUND = Pattern.compile("([a-zA-Z][a-zA-Z0-9]*)?((?:[.#][a-zA-Z0-9_\\-]+)*)");
+
+    private static final Set<String> VOID_ELEMENTS = new HashSet<>(Arrays.asList(
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "source", "track", "wbr"));
+    private static final Set<String> BLOCK_ELEMENTS = new HashSet<>(Arrays.asList(
+            "html", "head", "body", "meta", "link", "title", "style", "table", "thead", "tbody", "tfoot", "tr",
+            "td", "th", "div", "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "li", "br", "hr", "center"));
+    private static final Set<String> PRESERVED_ELEMENTS = new HashSet<>(Arrays.asList("pre", "textarea", "script"));
+    private static final String HTML_CONTENT_TYPE = "text/html; charset=utf-8";
+    // Lines are broken at the first safe point past this length, well under the 998 limit for 7bit
+    private static final int WRAP_COLUMN = 200;
+
+    /**
+     * Runs the full compilation pipeline on a raw template
+     */
+    public CompiledTemplate compile(String html) throws MessagingException {
+        String compiled = minifyHtml(inlineCss(html));
+
+        // The baseline is what JavaMail would have picked for the raw template
+        byte[] originalBytes = html.getBytes(StandardCharsets.UTF_8);
+        String originalEncoding = defaultTransferEncoding(html);
+
+        byte[] compiledBytes = compiled.getBytes(StandardCharsets.UTF_8);
+        String transferEncoding = defaultTransferEncoding(compiled);
+        int compiledWireSize = encodedSize(compiledBytes, transferEncoding);
+        if (!transferEncoding.equals("7bit")) {
+            int quotedPrintableSize = encodedSize(compiledBytes, "quoted-printable");
+            int base64Size = encodedSize(compiledBytes, "base64");
+            transferEncoding = quotedPrintableSize <= base64Size ? "quoted-printable" : "base64";
+            compiledWireSize = Math.min(quotedPrintableSize, base64Size);
+        }
+
+        return new CompiledTemplate(compiled, transferEncoding, originalEncoding, originalBytes.length,
+                encodedSize(originalBytes, originalEncoding), compiledBytes.length, compiledWireSize);
+    }
+
+    /**
+     * Returns the transfer encoding JavaMail chooses for an HTML body: 7bit for ASCII-only
+     * content with lines under 998 bytes, otherwise quoted-printable or base64
+     */
+    public static String defaultTransferEncoding(String html) throws MessagingException {
+        try {
+            return MimeUtility.getEncoding(new DataHandler(html, HTML_CONTENT_TYPE));
+        } catch (RuntimeException e) {
+            throw new MessagingException("Failed to choose a transfer encoding", e);
+        }
+    }
+
+    /**
+     * Inlines rules with plain tag/class/id selectors into matching body elements.
+     * Media queries, pseudo-classes and other complex rules stay in the style block,
+     * as do any properties they set, so they can still override the inlined values.
+     */
+    String inlineCss(String html) {
+        List<CssRule> inlineRules = new ArrayList<>();
+        Set<String> retainedFamilies = new HashSet<>();
+        List<List<String>> retainedBlocks = new ArrayList<>();
+
+        Matcher styleMatcher = STYLE_BLOCK.matcher(html);
+        while (styleMatcher.find()) {
+            List<String> retained = new ArrayList<>();
+            parseStylesheet(styleMatcher.group(2), inlineRules, retained, retainedFamilies);
+            retainedBlocks.add(retained);
+        }
+        if (inlineRules.isEmpty() || indexOfIgnoreCase(html, "<body", 0) < 0) {
+            return html;
+        }
+
+        // Properties contested by retained rules remain in the stylesheet, along with
+        // their shorthand/longhand relatives so the cascade between them is unchanged
+        List<CssRule> keptRules = new ArrayList<>();
+        for (CssRule rule : inlineRules) {
+            Map<String, String> kept = new LinkedHashMap<>();
+            rule.declarations.keySet().removeIf(property -> {
+                if (retainedFamilies.contains(propertyFamily(property))) {
+                    kept.put(property, rule.declarations.get(property));
+                    return true;
+                }
+                return false;
+            });
+            if (!kept.isEmpty()) {
+                keptRules.add(new CssRule(rule.selector, rule.compounds, rule.specificity, rule.order, kept));
+            }
+        }
+
+        StringBuilder out = new StringBuilder(html.length());
+        Deque<TagInfo> openElements = new ArrayDeque<>();
+        int blockIndex = 0;
+        int last = 0;
+        boolean inBody = false;
+
+        Matcher tag = TAG.matcher(html);
+        while (tag.find()) {
+            String name = tag.group(2).toLowerCase(Locale.ROOT);
+            boolean closing = !tag.group(1).isEmpty();
+
+            if (!closing && name.equals("style")) {
+                // Rewrite the style block with only the rules that were not inlined
+                int end = indexOfIgnoreCase(html, "</style>", tag.end());
+                if (end < 0) {
+                    break;
+                }
+                StringBuilder css = new StringBuilder();
+                if (blockIndex == 0) {
+                    for (CssRule rule : keptRules) {
+                        css.append(rule.toCss());
+                    }
+                }
+                for (String retained : retainedBlocks.get(blockIndex++)) {
+                    css.append(retained);
+                }
+                out.append(html, last, tag.start());
+                if (css.length() > 0) {
+                    out.append(tag.group()).append(css).append("</style>");
+                }
+                last = end + "</style>".length();
+                tag.region(last, html.length());
+                continue;
+            }
+
+            if (closing) {
+                popUntil(openElements, name);
+                continue;
+            }
+
+            String attributes = tag.group(3);
+            TagInfo info = new TagInfo(name, attributeValue(CLASS_ATTRIBUTE, attributes),
+                    attributeValue(ID_ATTRIBUTE, attributes));
+            if (name.equals("body")) {
+                inBody = true;
+            }
+
+            if (inBody) {
+                Map<String, String> style = computeStyle(info, openElements, inlineRules, attributes);
+                if (!style.isEmpty()) {
+                    out.append(html, last, tag.start());
+                    out.append(rewriteStyle(tag.group(), attributes, style));
+                    last = tag.end();
+                }
+            }
+
+            boolean selfClosing = attributes.trim().endsWith("/");
+            if (!selfClosing && !VOID_ELEMENTS.contains(name)) {
+                openElements.push(info);
+            }
+        }
+        out.append(html, last, html.length());
+        return out.toString();
+    }
+
+    /**
+     * Strips comments and insignificant whitespace, keeping conditional comments
+     * and the contents of whitespace-sensitive elements
+     */
+    String minifyHtml(String html) {
+        StringBuilder out = new StringBuilder(html.length());
+        String previousTag = "";
+        int i = 0;
+
+        while (i < html.length()) {
+            if (html.startsWith("<!--", i)) {
+                int end = html.indexOf("-->", i + 4);
+                end = end < 0 ? html.length() : end + 3;
+                if (html.startsWith("<!--[if", i) || html.startsWith("<![endif]", i + 4)) {
+                    out.append(html, i, end);
+                }
+                i = end;
+                continue;
+            }
+
+            if (html.charAt(i) == '<') {
+                Matcher tag = TAG.matcher(html).region(i, html.length());
+                if (!tag.lookingAt()) {
+                    int end = html.indexOf('>', i);
+                    end = end < 0 ? html.length() : end + 1;
+                    out.append(html, i, end);
+                    i = end;
+                    continue;
+                }
+
+                String name = tag.group(2).toLowerCase(Locale.ROOT);
+                // A line break between two tags is insignificant when either one is block-level
+                boolean afterTag = out.length() > 0 && out.charAt(out.length() - 1) == '>';
+                if (afterTag && (BLOCK_ELEMENTS.contains(name) || BLOCK_ELEMENTS.contains(previousTag))
+                        && lineLength(out) > WRAP_COLUMN) {
+                    out.append('\n');
+                }
+                String attributes = tag.group(3).replaceAll("\\s+", " ");
+                if (attributes.endsWith(" /")) {
+                    attributes = attributes.substring(0, attributes.length() - 2) + "/";
+                }
+                out.append('<').append(tag.group(1)).append(tag.group(2)).append(attributes).append('>');
+                i = tag.end();
+
+                boolean opening = tag.group(1).isEmpty();
+                if (opening && (PRESERVED_ELEMENTS.contains(name) || name.equals("style"))) {
+                    int end = indexOfIgnoreCase(html, "</" + name, i);
+                    end = end < 0 ? html.length() : end;
+                    String content = html.substring(i, end);
+                    if (name.equals("style")) {
+                        appendCss(out, minifyCss(content));
+                    } else {
+                        out.append(content);
+                    }
+                    i = end;
+                }
+                previousTag = name;
+                continue;
+            }
+
+            int next = html.indexOf('<', i);
+            next = next < 0 ? html.length() : next;
+            String text = html.substring(i, next);
+            if (text.isBlank()) {
+                // Whitespace next to block-level tags is insignificant
+                String nextTag = nextTagName(html, next);
+                if (lineLength(out) > WRAP_COLUMN) {
+                    out.append('\n');
+                } else if (!BLOCK_ELEMENTS.contains(previousTag) && !BLOCK_ELEMENTS.contains(nextTag) && !text.isEmpty()) {
+                    out.append(' ');
+                }
+            } else {
+                appendText(out, text);
+            }
+            i = next;
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Appends text with whitespace runs collapsed, using a line break instead of a space
+     * once the current line is long
+     */
+    private static void appendText(StringBuilder out, String text) {
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            // Same characters as the regex \s class used elsewhere, so non-breaking spaces are kept
+            if (" \t\n\u000B\f\r".indexOf(c) >= 0) {
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace) {
+                out.append(lineLength(out) > WRAP_COLUMN ? '\n' : ' ');
+                pendingSpace = false;
+            }
+            out.append(c);
+        }
+        if (pendingSpace) {
+            out.append(lineLength(out) > WRAP_COLUMN ? '\n' : ' ');
+        }
+    }
+
+    /**
+     * Appends minified CSS, breaking the line after a rule once it is long
+     */
+    private static void appendCss(StringBuilder out, String css) {
+        for (int i = 0; i < css.length(); i++) {
+            char c = css.charAt(i);
+            out.append(c);
+            if (c == '}' && i + 1 < css.length() && lineLength(out) > WRAP_COLUMN) {
+                out.append('\n');
+            }
+        }
+    }
+
+    private static int lineLength(StringBuilder out) {
+        return out.length() - out.lastIndexOf("\n") - 1;
+    }
+
+    /**
+     * Strips CSS comments and collapses whitespace around punctuation
+     */
+    static String minifyCss(String css) {
+        return css.replaceAll("(?s)/\\*.*?\\*/", "")
+                .replaceAll("\\s+", " ")
+                .replaceAll("\\s*([{};:,>])\\s*", "$1")
+                .replaceAll(";}", "}")
+                .trim();
+    }
+
+    private void parseStylesheet(String css, List<CssRule> inlineRules, List<String> retained,
+                                Set<String> retainedFamilies) {
+        String source = css.replaceAll("(?s)/\\*.*?\\*/", "");
+        int i = 0;
+        while (i < source.length()) {
+            int open = source.indexOf('{', i);
+            if (open < 0) {
+                break;
+            }
+            String selector = source.substring(i, open).trim();
+            int close = matchingBrace(source, open);
+            String body = source.substring(open + 1, close);
+            i = close + 1;
+
+            if (selector.startsWith("@") || !SIMPLE_SELECTOR.matcher(selector.replace(",", " ")).matches()) {
+                retained.add(minifyCss(selector + "{" + body + "}"));
+                collectFamilies(body, retainedFamilies);
+                continue;
+            }
+
+            Map<String, String> declarations = parseDeclarations(body);
+            for (String single : selector.split(",")) {
+                String[] compounds = single.trim().split("\\s+");
+                int specificity = 0;
+                for (String compound : compounds) {
+                    specificity += specificity(compound);
+                }
+                inlineRules.add(new CssRule(single.trim(), compounds, specificity, inlineRules.size(),
+                        new LinkedHashMap<>(declarations)));
+            }
+        }
+    }
+
+    /**
+     * Collects the families of non-important properties declared anywhere in a (possibly nested) block
+     */
+    private static void collectFamilies(String body, Set<String> families) {
+        for (String part : body.split("[;{}]")) {
+            int colon = part.indexOf(':');
+            if (colon > 0 && !part.contains("!important")) {
+                families.add(propertyFamily(part.substring(0, colon).trim().toLowerCase(Locale.ROOT)));
+            }
+        }
+    }
+
+    /**
+     * Groups a property with its shorthand, e.g. margin-bottom and margin both map to margin
+     */
+    private static String propertyFamily(String property) {
+        int dash = property.indexOf('-', 1);
+        return dash < 0 ? property : property.substring(0, dash);
+    }
+
+    private static Map<String, String> parseDeclarations(String body) {
+        Map<String, String> declarations = new LinkedHashMap<>();
+        for (String declaration : body.split(";")) {
+            int colon = declaration.indexOf(':');
+            if (colon > 0) {
+                String property = declaration.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = declaration.substring(colon + 1).trim().replaceAll("\\s+", " ");
+                if (!property.isEmpty() && !value.isEmpty()) {
+                    declarations.put(property, value);
+                }
+            }
+        }
+        return declarations;
+    }
+
+    private static Map<String, String> computeStyle(TagInfo element, Deque<TagInfo> ancestors,
+                                                   List<CssRule> rules, String attributes) {
+        List<CssRule> matched = new ArrayList<>();
+        for (CssRule rule : rules) {
+            if (!rule.declarations.isEmpty() && rule.matches(element, ancestors)) {
+                matched.add(rule);
+            }
+        }
+        if (matched.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        matched.sort((a, b) -> a.specificity != b.specificity
+                ? Integer.compare(a.specificity, b.specificity) : Integer.compare(a.order, b.order));
+
+        Map<String, String> style = new LinkedHashMap<>();
+        for (CssRule rule : matched) {
+            rule.declarations.forEach((property, value) -> cascade(style, property, value));
+        }
+
+        // Existing inline declarations win over stylesheet rules
+        String existing = attributeValue(STYLE_ATTRIBUTE, attributes);
+        if (existing != null) {
+            parseDeclarations(existing).forEach((property, value) -> cascade(style, property, value));
+        }
+        return style;
+    }
+
+    private static void cascade(Map<String, String> style, String property, String value) {
+        String current = style.get(property);
+        if (current == null || !current.endsWith("!important") || value.endsWith("!important")) {
+            style.remove(property);
+            style.put(property, value);
+        }
+    }
+
+    private static String rewriteStyle(String tag, String attributes, Map<String, String> style) {
+        StringBuilder value = new StringBuilder();
+        style.forEach((property, declaration) -> value.append(property).append(':').append(declaration).append(';'));
+        value.setLength(value.length() - 1);
+        String escaped = value.toString().replace("\"", "'");
+
+        Matcher existing = STYLE_ATTRIBUTE.matcher(attributes);
+        if (existing.find()) {
+            String rewritten = attributes.substring(0, existing.start()) + " style=\"" + escaped + "\""
+                    + attributes.substring(existing.end());
+            return tag.replace(attributes, rewritten);
+        }
+
+        int insertAt = tag.endsWith("/>") ? tag.length() - 2 : tag.length() - 1;
+        String prefix = tag.substring(0, insertAt);
+        if (tag.endsWith("/>")) {
+            prefix = prefix.stripTrailing();
+        }
+        return prefix + " style=\"" + escaped + "\"" + tag.substring(insertAt);
+    }
+
+    private static String attributeValue(Pattern pattern, String attributes) {
+        Matcher matcher = pattern.matcher(attributes);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+    }
+
+    private static void popUntil(Deque<TagInfo> openElements, String name) {
+        for (TagInfo open : openElements) {
+            if (open.name.equals(name)) {
+                while (!openElements.pop().name.equals(name)) {
+                    // discard unclosed children
+                }
+                return;
+            }
+        }
+    }
+
+    private static int specificity(String compound) {
+        int score = 0;
+        Matcher matcher = COMPOUND.matcher(compound);
+        if (matcher.matches()) {
+            if (matcher.group(1) != null) {
+                score += 1;
+            }
+            for (String part : matcher.group(2).split("(?=[.#])")) {
+                if (part.startsWith("#")) {
+                    score += 10000;
+                } else if (part.startsWith(".")) {
+                    score += 100;
+                }
+            }
+        }
+        return score;
+    }
+
+    private static int matchingBrace(String css, int open) {
+        int depth = 0;
+        for (int i = open; i < css.length(); i++) {
+            char c = css.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return css.length() - 1;
+    }
+
+    private static String nextTagName(String html, int index) {
+        Matcher tag = TAG.matcher(html).region(index, html.length());
+        return tag.lookingAt() ? tag.group(2).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * Case-insensitive search that returns an index into the original string;
+     * lowercasing a copy first can change its length and shift every later index
+     */
+    private static int indexOfIgnoreCase(String html, String target, int from) {
+        for (int i = Math.max(from, 0); i <= html.length() - target.length(); i++) {
+            if (html.regionMatches(true, i, target, 0, target.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Size of the encoded body as sent, counting bare line feeds as the CRLF they become in SMTP
+     */
+    private static int encodedSize(byte[] content, String encoding) throws MessagingException {
+        try {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(content.length + content.length / 2);
+            OutputStream encoder = MimeUtility.encode(encoded, encoding);
+            encoder.write(content);
+            encoder.flush();
+            int size = encoded.size();
+            byte[] bytes = encoded.toByteArray();
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '\n' && (i == 0 || bytes[i - 1] != '\r')) {
+                    size++;
+                }
+            }
+            return size;
+        } catch (IOException e) {
+            throw new MessagingException("Failed to measure " + encoding + " size", e);
+        }
+    }
+
+    // Inner classes for compilation data
+    private static class TagInfo {
+        final String name;
+        final Set<String> classes = new HashSet<>();
+        final String id;
+
+        TagInfo(String name, String classAttribute, String id) {
+            this.name = name;
+            this.id = id;
+            if (classAttribute != null) {
+                classes.addAll(Arrays.asList(classAttribute.trim().split("\\s+")));
+            }
+        }
+
+        boolean matches(String compound) {
+            Matcher matcher = COMPOUND.matcher(compound);
+            if (!matcher.matches()) {
+                return false;
+            }
+            if (matcher.group(1) != null && !matcher.group(1).equalsIgnoreCase(name)) {
+                return false;
+            }
+            for (String part : matcher.group(2).split("(?=[.#])")) {
+                if (part.startsWith(".") && !classes.contains(part.substring(1))) {
+                    return false;
+                }
+                if (part.startsWith("#") && !part.substring(1).equals(id)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class CssRule {
+        final String selector;
+        final String[] compounds;
+        final int specificity;
+        final int order;
+        final Map<String, String> declarations;
+
+        CssRule(String selector, String[] compounds, int specificity, int order, Map<String, String> declarations) {
+            this.selector = selector;
+            this.compounds = compounds;
+            this.specificity = specificity;
+            this.order = order;
+            this.declarations = declarations;
+        }
+
+        /**
+         * Matches the last compound against the element and the rest against its ancestors in order
+         */
+        boolean matches(TagInfo element, Deque<TagInfo> ancestors) {
+            int index = compounds.length - 1;
+            if (!element.matches(compounds[index--])) {
+                return false;
+            }
+            for (TagInfo ancestor : ancestors) {
+                if (index < 0) {
+                    break;
+                }
+                if (ancestor.matches(compounds[index])) {
+                    index--;
+                }
+            }
+            return index < 0;
+        }
+
+        String toCss() {
+            StringBuilder css = new StringBuilder(selector).append('{');
+            declarations.forEach((property, value) -> css.append(property).append(':').append(value).append(';'));
+            css.setLength(css.length() - 1);
+            return css.append('}').toString();
+        }
+    }
+
+    public static class CompiledTemplate {
+        public final String html, transferEncoding, originalTransferEncoding;
+        public final int originalSize, originalWireSize, compiledSize, compiledWireSize;
+
+        public CompiledTemplate(String html, String transferEncoding, String originalTransferEncoding,
+                                int originalSize, int originalWireSize, int compiledSize, int compiledWireSize) {
+            this.html = html;
+            this.transferEncoding = transferEncoding;
+            this.originalTransferEncoding = originalTransferEncoding;
+            this.originalSize = originalSize;
+            this.originalWireSize = originalWireSize;
+            this.compiledSize = compiledSize;
+            this.compiledWireSize = compiledWireSize;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package co.ke.fe_email_client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TemplateCompilerTest {
+
+    private final TemplateCompiler compiler = new TemplateCompiler();
+
+    @Test
+    void inlinesSimpleRulesAndKeepsImportantMediaRules() throws Exception {
+        String html = "<html><head><style>.btn { color: red; padding: 4px }\n"
+                + "@media (max-width: 600px) { .btn { color: blue !important } }</style></head>"
+                + "<body><a class=\"btn\">Go</a></body></html>";
+
+        String compiled = compiler.compile(html).html;
+
+        // An !important media rule still overrides the inline value, so the base value can be inlined
+        assertTrue(compiled.contains("<a class=\"btn\" style=\"color:red;padding:4px\">Go</a>"), compiled);
+        assertTrue(compiled.contains("<style>@media (max-width:600px){.btn{color:blue !important}}</style>"), compiled);
+    }
+
+    @Test
+    void keepsPropertiesContestedByRetainedRulesInTheStylesheet() throws Exception {
+        String html = "<html><head><style>.btn { color: red; margin-top: 2px }\n"
+                + "@media (max-width: 600px) { .btn { margin: 0 } }</style></head>"
+                + "<body><a class=\"btn\">Go</a></body></html>";
+
+        String compiled = compiler.compile(html).html;
+
+        // Inlining margin-top would beat the media query's margin shorthand
+        assertTrue(compiled.contains("<a class=\"btn\" style=\"color:red\">Go</a>"), compiled);
+        assertTrue(compiled.contains(".btn{margin-top:2px}@media (max-width:600px){.btn{margin:0}}"), compiled);
+    }
+
+    @Test
+    void preservesPreContent() throws Exception {
+        String pre = "<pre>  first\n      indented  \n\n</pre>";
+        String html = "<html><body>\n  <p>Hello   there</p>\n  " + pre + "\n</body></html>";
+
+        String compiled = compiler.compile(html).html;
+
+        assertTrue(compiled.contains(pre), compiled);
+        assertTrue(compiled.contains("<p>Hello there</p>"), compiled);
+    }
+
+    @Test
+    void keepsMarkupIntactWhenLowercasingChangesLength() throws Exception {
+        // U+0130 lowercases to two chars, which used to shift indexes found in a lowercased copy
+        String html = "<html><head><title>İİİİ İstanbul</title>"
+                + "<style>.x { color: red }</style></head><body><p class=\"x\">Merhaba</p></body></html>";
+
+        String compiled = compiler.compile(html).html;
+
+        assertEquals("<html><head><title>İİİİ İstanbul</title></head>"
+                + "<body><p class=\"x\" style=\"color:red\">Merhaba</p></body></html>", compiled);
+    }
+
+    @Test
+    void sendsAsciiTemplatesAs7bit() throws Exception {
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            rows.append("<tr>\n  <td>Row ").append(i).append(" of the report</td>\n</tr>\n");
+        }
+        String html = "<html><body><table>\n" + rows + "</table></body></html>";
+
+        TemplateCompiler.CompiledTemplate compiled = compiler.compile(html);
+
+        assertEquals("7bit", compiled.originalTransferEncoding);
+        assertEquals("7bit", compiled.transferEncoding);
+        assertTrue(compiled.html.split("\n").length > 1, "minified output was not wrapped");
+        for (String line : compiled.html.split("\n")) {
+            assertTrue(line.length() <= 998, "line too long for 7bit: " + line.length());
+        }
+        assertTrue(compiled.compiledWireSize < compiled.originalWireSize);
+    }
+
+    @Test
+    void fallsBackToQuotedPrintableOrBase64ForNonAsciiContent() throws Exception {
+        String html = "<html><body><p>Café na chai</p></body></html>";
+
+        TemplateCompiler.CompiledTemplate compiled = compiler.compile(html);
+
+        assertFalse(compiled.transferEncoding.equals("7bit"));
+        assertTrue(compiled.transferEncoding.equals("quoted-printable") || compiled.transferEncoding.equals("base64"));
+    }
+}